@@ -111,6 +111,9 @@ import java.util.stream.Stream;
  * <li><i>direction</i>: The direction that the counter counts. Can be INCREMENT (default) or DECREMENT.</li>
  * <li><i>executeAfter</i>: If the counter is executed after the element else it will execute before the element.
  * 			    			Default is 'false'.</li>
+ * </ul>
+ * The value of the counter can be observed from another thread while the execution is being filtered by
+ * registering a {@link CounterProgress} on the execution context.
  *
  * @author <a href="mailto:maurice.zeijen@smies.com">maurice.zeijen@smies.com</a>
  * @since 1.1
@@ -187,6 +190,7 @@ public class Counter implements BeforeVisitor, AfterVisitor, DOMVisitBefore, DOM
             }
         }
         beanContext.addBean(beanId, value, source);
+        CounterProgress.publish(executionContext, beanIdName, value);
     }
 
 
@@ -0,0 +1,247 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-calc-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ * 
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ * 
+ * ======================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ======================================================================
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.calc;
+
+import org.smooks.api.ExecutionContext;
+import org.smooks.api.TypedKey;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.stream.Collectors;
+
+/**
+ * Live progress of the {@link Counter}s in a single execution, safe to poll from a monitoring thread.
+ * <p/>
+ * Counter values are normally only held in the execution's {@link org.smooks.api.bean.context.BeanContext},
+ * which must not be read from another thread. Once a <code>CounterProgress</code> is registered on an
+ * {@link ExecutionContext}, every counter in that execution also publishes its value using lock-free ordered
+ * writes. The monitoring thread reads them through the handle returned by {@link #register(ExecutionContext)},
+ * never through the execution context.
+ * <p/>
+ * Example usage:
+ * <pre>
+ * ExecutionContext executionContext = smooks.createExecutionContext();
+ * CounterProgress progress = CounterProgress.register(executionContext);
+ * InputStream inputStream = progress.monitor(new FileInputStream(file));
+ *
+ * // on a monitoring thread
+ * CounterSnapshot previous = ...;
+ * progress.getSnapshot("orderCount").ifPresent(snapshot -&gt; log(snapshot.getValue(), snapshot.getRate(previous)));
+ * progress.getEstimatedTimeRemaining(file.length()).ifPresent(eta -&gt; log(eta));
+ *
+ * smooks.filterSource(executionContext, new StreamSource(inputStream));
+ * </pre>
+ *
+ * @since 2.0
+ */
+public final class CounterProgress {
+
+    private static final TypedKey<CounterProgress> COUNTER_PROGRESS_TYPED_KEY = new TypedKey<>();
+
+    private static final AtomicLongFieldUpdater<CounterProgress> BYTES_READ = AtomicLongFieldUpdater.newUpdater(CounterProgress.class, "bytesRead");
+
+    private final ConcurrentMap<String, LiveCounter> liveCounters = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private boolean monitoring;
+    private volatile long bytesRead;
+    private volatile boolean readStarted;
+    // guarded by the volatile write to readStarted
+    private long readStartNanos;
+
+    private CounterProgress() {
+    }
+
+    /**
+     * Registers a <code>CounterProgress</code> on the execution context. Must be called before the execution context
+     * is filtered, on the thread that creates it. Registering more than once returns the existing progress.
+     *
+     * @param executionContext The execution context to observe.
+     * @return The progress of the execution context.
+     */
+    public static CounterProgress register(ExecutionContext executionContext) {
+        CounterProgress counterProgress = executionContext.get(COUNTER_PROGRESS_TYPED_KEY);
+        if (counterProgress == null) {
+            counterProgress = new CounterProgress();
+            executionContext.put(COUNTER_PROGRESS_TYPED_KEY, counterProgress);
+        }
+        return counterProgress;
+    }
+
+    static void publish(ExecutionContext executionContext, String beanId, long value) {
+        CounterProgress counterProgress = executionContext.get(COUNTER_PROGRESS_TYPED_KEY);
+        if (counterProgress != null) {
+            counterProgress.publish(beanId, value);
+        }
+    }
+
+    private void publish(String beanId, long value) {
+        long nanos = System.nanoTime();
+        LiveCounter liveCounter = liveCounters.get(beanId);
+        if (liveCounter == null) {
+            liveCounters.put(beanId, new LiveCounter(beanId, value, nanos));
+        } else {
+            liveCounter.publish(value, nanos);
+        }
+    }
+
+    /**
+     * @param beanId The beanId of the counter.
+     * @return A point-in-time snapshot of the counter, or empty when the counter has not counted yet.
+     */
+    public Optional<CounterSnapshot> getSnapshot(String beanId) {
+        LiveCounter liveCounter = liveCounters.get(beanId);
+        if (liveCounter == null) {
+            return Optional.empty();
+        }
+        return Optional.of(liveCounter.snapshot(System.nanoTime()));
+    }
+
+    /**
+     * @return Point-in-time snapshots of all counters that have counted so far, keyed by beanId.
+     */
+    public Map<String, CounterSnapshot> getSnapshots() {
+        long nanos = System.nanoTime();
+        return liveCounters.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().snapshot(nanos)));
+    }
+
+    /**
+     * Wraps the source stream so that the number of bytes read by the filter is tracked for
+     * {@link #getEstimatedTimeRemaining(long)}. Bytes re-read after {@link InputStream#reset()} are not counted twice.
+     * Only one source stream can be monitored per execution.
+     *
+     * @param inputStream The source stream.
+     * @return The tracked source stream.
+     * @throws IllegalStateException If a source stream is already monitored.
+     */
+    public synchronized InputStream monitor(InputStream inputStream) {
+        if (monitoring) {
+            throw new IllegalStateException("A source stream is already monitored by this CounterProgress");
+        }
+        monitoring = true;
+        return new FilterInputStream(inputStream) {
+            private long markedBytesRead;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    addBytesRead(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    addBytesRead(n);
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                if (skipped > 0) {
+                    addBytesRead(skipped);
+                }
+                return skipped;
+            }
+
+            @Override
+            public synchronized void mark(int readlimit) {
+                super.mark(readlimit);
+                markedBytesRead = bytesRead;
+            }
+
+            @Override
+            public synchronized void reset() throws IOException {
+                super.reset();
+                BYTES_READ.lazySet(CounterProgress.this, markedBytesRead);
+            }
+        };
+    }
+
+    private void addBytesRead(long n) {
+        if (!readStarted) {
+            readStartNanos = System.nanoTime();
+            readStarted = true;
+        }
+        BYTES_READ.lazySet(this, bytesRead + n);
+    }
+
+    /**
+     * @return The number of bytes read from the monitored source stream so far.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Estimates the remaining filtering time from the read throughput of the monitored source stream.
+     *
+     * @param totalBytes The total size of the source stream in bytes.
+     * @return The estimated time remaining, or empty when no bytes have been read yet or the total size is unknown.
+     */
+    public Optional<Duration> getEstimatedTimeRemaining(long totalBytes) {
+        if (totalBytes <= 0 || !readStarted) {
+            return Optional.empty();
+        }
+        long startNanos = readStartNanos;
+        long read = bytesRead;
+        if (read <= 0) {
+            return Optional.empty();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long remainingBytes = Math.max(0, totalBytes - read);
+        return Optional.of(Duration.ofNanos((long) (elapsedNanos * ((double) remainingBytes / read))));
+    }
+}
@@ -0,0 +1,159 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-calc-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ * 
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ * 
+ * ======================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ======================================================================
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.calc;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable, point-in-time copy of a single {@link Counter} within one execution, as taken by
+ * {@link CounterProgress#getSnapshot(String)}.
+ * <p/>
+ * All fields of a snapshot come from the same count. Rates are computed up to the time the snapshot was taken,
+ * so they fall when the counter stalls.
+ *
+ * @since 2.0
+ */
+public final class CounterSnapshot {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final String beanId;
+    private final long value;
+    private final long updates;
+    private final long startNanos;
+    private final long lastUpdateNanos;
+    private final long snapshotNanos;
+
+    CounterSnapshot(String beanId, long value, long updates, long startNanos, long lastUpdateNanos, long snapshotNanos) {
+        this.beanId = beanId;
+        this.value = value;
+        this.updates = updates;
+        this.startNanos = startNanos;
+        this.lastUpdateNanos = lastUpdateNanos;
+        this.snapshotNanos = snapshotNanos;
+    }
+
+    /**
+     * @return The beanId of the counter.
+     */
+    public String getBeanId() {
+        return beanId;
+    }
+
+    /**
+     * @return The counter value.
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * @return The number of times the counter has counted in this execution, including resets.
+     */
+    public long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which the counter last counted.
+     */
+    public long getLastUpdateNanos() {
+        return lastUpdateNanos;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which this snapshot was taken.
+     */
+    public long getSnapshotNanos() {
+        return snapshotNanos;
+    }
+
+    /**
+     * @return The number of nanoseconds between the last count and the time this snapshot was taken.
+     */
+    public long getIdleNanos() {
+        return Math.max(0, snapshotNanos - lastUpdateNanos);
+    }
+
+    /**
+     * The average number of counts per second from the first count in this execution up to the time this snapshot
+     * was taken.
+     *
+     * @return The average count rate, or 0 when the elapsed time is too short to measure.
+     */
+    public double getAverageRate() {
+        return rate(updates - 1, snapshotNanos - startNanos);
+    }
+
+    /**
+     * The number of counts per second in the window between an earlier snapshot of the same counter and this one.
+     * Polling at a fixed interval and passing the previous snapshot gives the current throughput.
+     *
+     * @param previous An earlier snapshot of the same counter.
+     * @return The count rate over the window, or 0 when the window is too short to measure.
+     * @throws IllegalArgumentException If the previous snapshot is of another counter or was taken after this one.
+     */
+    public double getRate(CounterSnapshot previous) {
+        Objects.requireNonNull(previous, "previous");
+        if (!beanId.equals(previous.beanId)) {
+            throw new IllegalArgumentException("The previous snapshot is of counter '" + previous.beanId + "', not '" + beanId + "'");
+        }
+        if (previous.snapshotNanos > snapshotNanos) {
+            throw new IllegalArgumentException("The previous snapshot was taken after this snapshot");
+        }
+        return rate(updates - previous.updates, snapshotNanos - previous.snapshotNanos);
+    }
+
+    private static double rate(long counts, long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return counts * NANOS_PER_SECOND / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return beanId + "=" + value + " (" + String.format("%.1f", getAverageRate()) + "/s)";
+    }
+}
@@ -0,0 +1,104 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-calc-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ * 
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ * 
+ * ======================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ======================================================================
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.calc;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The live, mutable state of a single {@link Counter} within one execution.
+ * <p/>
+ * Written by the filtering thread only. {@link #snapshot(long)} may be called from any thread and returns a
+ * consistent {@link CounterSnapshot}: the writer brackets every publish with an odd/even sequence number
+ * (a seqlock), so that a reader retries instead of mixing fields from different counts. Neither side takes a lock.
+ */
+final class LiveCounter {
+
+    private static final AtomicLongFieldUpdater<LiveCounter> SEQUENCE = AtomicLongFieldUpdater.newUpdater(LiveCounter.class, "sequence");
+    private static final AtomicLongFieldUpdater<LiveCounter> VALUE = AtomicLongFieldUpdater.newUpdater(LiveCounter.class, "value");
+    private static final AtomicLongFieldUpdater<LiveCounter> UPDATE_NANOS = AtomicLongFieldUpdater.newUpdater(LiveCounter.class, "updateNanos");
+    private static final AtomicLongFieldUpdater<LiveCounter> UPDATES = AtomicLongFieldUpdater.newUpdater(LiveCounter.class, "updates");
+
+    private final String beanId;
+    private final long startNanos;
+
+    private volatile long sequence;
+    private volatile long value;
+    private volatile long updateNanos;
+    private volatile long updates;
+
+    LiveCounter(String beanId, long value, long nanos) {
+        this.beanId = beanId;
+        this.startNanos = nanos;
+        this.value = value;
+        this.updateNanos = nanos;
+        this.updates = 1;
+    }
+
+    /**
+     * Called by the filtering thread only. Every write is an ordered (release) store, so a reader that observes
+     * any of the new fields also observes the odd sequence number written before them.
+     */
+    void publish(long newValue, long nanos) {
+        long seq = sequence;
+        SEQUENCE.lazySet(this, seq + 1);
+        VALUE.lazySet(this, newValue);
+        UPDATE_NANOS.lazySet(this, nanos);
+        UPDATES.lazySet(this, updates + 1);
+        SEQUENCE.lazySet(this, seq + 2);
+    }
+
+    CounterSnapshot snapshot(long snapshotNanos) {
+        while (true) {
+            long seq = sequence;
+            if ((seq & 1) == 0) {
+                long currentValue = value;
+                long currentUpdateNanos = updateNanos;
+                long currentUpdates = updates;
+                if (sequence == seq) {
+                    return new CounterSnapshot(beanId, currentValue, currentUpdates, startNanos, currentUpdateNanos, snapshotNanos);
+                }
+            }
+            Thread.yield();
+        }
+    }
+}
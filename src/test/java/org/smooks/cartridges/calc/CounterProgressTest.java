@@ -0,0 +1,393 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-calc-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ * 
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ * 
+ * ======================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ======================================================================
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.calc;
+
+import org.smooks.Smooks;
+import org.smooks.api.ExecutionContext;
+import org.smooks.api.Registry;
+import org.smooks.api.bean.context.BeanContext;
+import org.smooks.api.lifecycle.LifecycleManager;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.engine.injector.Scope;
+import org.smooks.engine.lifecycle.PostConstructLifecyclePhase;
+import org.smooks.engine.lookup.LifecycleManagerLookup;
+import org.smooks.engine.resource.config.DefaultResourceConfig;
+import org.smooks.io.payload.JavaResult;
+import org.smooks.tck.MockExecutionContext;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Unit test for the CounterProgress class
+ */
+public class CounterProgressTest {
+
+    private final String beanId = "bean";
+
+    private ResourceConfig resourceConfig;
+
+    private MockExecutionContext executionContext;
+    private BeanContext beanContext;
+    private Registry registry;
+    private LifecycleManager lifecycleManager;
+
+    private Element element = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument().createElement("foo");
+
+    public CounterProgressTest() throws ParserConfigurationException {
+    }
+
+    @Test(groups = "unit")
+    public void test_not_registered() {
+        Counter counter = newCounter();
+
+        counter.visitBefore(element, executionContext);
+        counter.visitBefore(element, executionContext);
+
+        assertEquals(1L, beanContext.getBean(beanId));
+
+        CounterProgress counterProgress = CounterProgress.register(executionContext);
+        assertFalse(counterProgress.getSnapshot(beanId).isPresent());
+
+        counter.visitBefore(element, executionContext);
+
+        assertEquals(2L, beanContext.getBean(beanId));
+        CounterSnapshot snapshot = counterProgress.getSnapshot(beanId).get();
+        assertEquals(2, snapshot.getValue());
+        assertEquals(1, snapshot.getUpdates());
+    }
+
+    @Test(groups = "unit")
+    public void test_snapshot() {
+        CounterProgress counterProgress = CounterProgress.register(executionContext);
+        assertSame(counterProgress, CounterProgress.register(executionContext));
+        assertFalse(counterProgress.getSnapshot(beanId).isPresent());
+
+        Counter counter = newCounter();
+        counter.visitBefore(element, executionContext);
+        counter.visitBefore(element, executionContext);
+        counter.visitBefore(element, executionContext);
+
+        CounterSnapshot snapshot = counterProgress.getSnapshot(beanId).get();
+        assertEquals(beanId, snapshot.getBeanId());
+        assertEquals(2, snapshot.getValue());
+        assertEquals(3, snapshot.getUpdates());
+        assertTrue(snapshot.getSnapshotNanos() - snapshot.getLastUpdateNanos() >= 0);
+        assertEquals(1, counterProgress.getSnapshots().size());
+
+        counter.visitBefore(element, executionContext);
+
+        assertEquals(2, snapshot.getValue());
+        assertEquals(3, counterProgress.getSnapshots().get(beanId).getValue());
+    }
+
+    @Test(groups = "unit")
+    public void test_reset() {
+        resourceConfig.setParameter("resetCondition", "bean == 1");
+        CounterProgress counterProgress = CounterProgress.register(executionContext);
+
+        Counter counter = newCounter();
+        counter.visitBefore(element, executionContext);
+        counter.visitBefore(element, executionContext);
+
+        assertEquals(1, counterProgress.getSnapshot(beanId).get().getValue());
+
+        counter.visitBefore(element, executionContext);
+
+        CounterSnapshot snapshot = counterProgress.getSnapshot(beanId).get();
+        assertEquals(0, snapshot.getValue());
+        assertEquals(3, snapshot.getUpdates());
+    }
+
+    @Test(groups = "unit")
+    public void test_rate() throws InterruptedException {
+        CounterProgress counterProgress = CounterProgress.register(executionContext);
+
+        Counter counter = newCounter();
+        for (int i = 0; i < 10; i++) {
+            counter.visitBefore(element, executionContext);
+            Thread.sleep(1);
+        }
+
+        CounterSnapshot first = counterProgress.getSnapshot(beanId).get();
+        assertTrue(first.getAverageRate() > 0);
+
+        Thread.sleep(50);
+
+        CounterSnapshot second = counterProgress.getSnapshot(beanId).get();
+        assertEquals(first.getUpdates(), second.getUpdates());
+        assertTrue(second.getAverageRate() < first.getAverageRate());
+        assertEquals(0.0, second.getRate(first));
+        assertTrue(second.getIdleNanos() > first.getIdleNanos());
+
+        counter.visitBefore(element, executionContext);
+        Thread.sleep(1);
+
+        CounterSnapshot third = counterProgress.getSnapshot(beanId).get();
+        assertTrue(third.getRate(second) > 0);
+    }
+
+    @Test(groups = "unit")
+    public void test_rate_invalid_previous() throws InterruptedException {
+        CounterProgress counterProgress = CounterProgress.register(executionContext);
+
+        Counter counter = newCounter();
+        counter.visitBefore(element, executionContext);
+
+        CounterSnapshot first = counterProgress.getSnapshot(beanId).get();
+        Thread.sleep(1);
+        CounterSnapshot second = counterProgress.getSnapshot(beanId).get();
+        CounterSnapshot other = new CounterSnapshot("other", 0, 1, first.getSnapshotNanos(), first.getSnapshotNanos(), first.getSnapshotNanos());
+
+        try {
+            second.getRate(null);
+            fail("Expected NullPointerException");
+        } catch (NullPointerException e) {
+        }
+        try {
+            second.getRate(other);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            first.getRate(second);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test(groups = "unit")
+    public void test_bytes_read() throws IOException {
+        CounterProgress counterProgress = CounterProgress.register(executionContext);
+        assertFalse(counterProgress.getEstimatedTimeRemaining(10).isPresent());
+
+        InputStream inputStream = counterProgress.monitor(new ByteArrayInputStream(new byte[10]));
+        inputStream.read();
+        inputStream.read(new byte[4]);
+
+        assertEquals(5, counterProgress.getBytesRead());
+        assertTrue(counterProgress.getEstimatedTimeRemaining(10).isPresent());
+
+        assertEquals(2, inputStream.skip(2));
+        assertEquals(7, counterProgress.getBytesRead());
+
+        while (inputStream.read() != -1) {
+        }
+        assertEquals(10, counterProgress.getBytesRead());
+        assertTrue(counterProgress.getEstimatedTimeRemaining(10).get().isZero());
+        assertFalse(counterProgress.getEstimatedTimeRemaining(0).isPresent());
+        assertFalse(counterProgress.getEstimatedTimeRemaining(-1).isPresent());
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalStateException.class)
+    public void test_monitor_twice() {
+        CounterProgress counterProgress = CounterProgress.register(executionContext);
+
+        counterProgress.monitor(new ByteArrayInputStream(new byte[10]));
+        counterProgress.monitor(new ByteArrayInputStream(new byte[10]));
+    }
+
+    @Test(groups = "unit")
+    public void test_mark_reset() throws IOException {
+        CounterProgress counterProgress = CounterProgress.register(executionContext);
+
+        InputStream inputStream = counterProgress.monitor(new ByteArrayInputStream(new byte[10]));
+        assertTrue(inputStream.markSupported());
+
+        inputStream.read(new byte[3]);
+        inputStream.mark(10);
+        inputStream.read(new byte[4]);
+        assertEquals(7, counterProgress.getBytesRead());
+
+        inputStream.reset();
+        assertEquals(3, counterProgress.getBytesRead());
+
+        while (inputStream.read() != -1) {
+        }
+        assertEquals(10, counterProgress.getBytesRead());
+    }
+
+    @Test(groups = "unit", timeOut = 60000)
+    public void test_filterSource_monitored() throws Exception {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("/smooks-beforeVisit-full-extended-config.xml"));
+        byte[] input = readResource("/test.xml");
+        // pause the source before the third <x:a> so that the filter blocks mid-document
+        int pauseAt = new String(input, StandardCharsets.UTF_8).lastIndexOf("<x:a>");
+
+        ExecutionContext filterExecutionContext = smooks.createExecutionContext();
+        CounterProgress counterProgress = CounterProgress.register(filterExecutionContext);
+        CountDownLatch resume = new CountDownLatch(1);
+        InputStream inputStream = counterProgress.monitor(new PausingInputStream(input, pauseAt, resume));
+        JavaResult result = new JavaResult();
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> filtering = executorService.submit(() -> smooks.filterSource(filterExecutionContext, new StreamSource(inputStream), result));
+
+            Optional<CounterSnapshot> intermediate = Optional.empty();
+            for (int i = 0; i < 1000 && !intermediate.isPresent() && !filtering.isDone(); i++) {
+                intermediate = counterProgress.getSnapshot("a").filter(snapshot -> snapshot.getValue() == 11);
+                if (!intermediate.isPresent()) {
+                    Thread.sleep(10);
+                }
+            }
+
+            assertTrue(intermediate.isPresent());
+            assertEquals(2, intermediate.get().getUpdates());
+            assertFalse(counterProgress.getSnapshot("b").isPresent());
+            assertEquals(pauseAt, counterProgress.getBytesRead());
+            assertTrue(counterProgress.getEstimatedTimeRemaining(input.length).isPresent());
+
+            resume.countDown();
+            filtering.get(30, TimeUnit.SECONDS);
+        } finally {
+            resume.countDown();
+            executorService.shutdownNow();
+        }
+
+        assertEquals(21L, result.getBean("a"));
+        assertEquals(5L, result.getBean("b"));
+
+        CounterSnapshot a = counterProgress.getSnapshot("a").get();
+        assertEquals(21, a.getValue());
+        assertEquals(3, a.getUpdates());
+
+        CounterSnapshot b = counterProgress.getSnapshot("b").get();
+        assertEquals(5, b.getValue());
+        assertEquals(3, b.getUpdates());
+
+        assertEquals(input.length, counterProgress.getBytesRead());
+        assertTrue(counterProgress.getEstimatedTimeRemaining(input.length).get().isZero());
+    }
+
+    private byte[] readResource(String name) throws IOException {
+        try (InputStream inputStream = getClass().getResourceAsStream(name)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, n);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    /**
+     * Serves the first bytes of the input, then blocks until resumed before serving the rest.
+     */
+    private static class PausingInputStream extends ByteArrayInputStream {
+
+        private final int pauseAt;
+        private final CountDownLatch resume;
+
+        PausingInputStream(byte[] input, int pauseAt, CountDownLatch resume) {
+            super(input);
+            this.pauseAt = pauseAt;
+            this.resume = resume;
+        }
+
+        @Override
+        public synchronized int read() {
+            awaitIfPaused();
+            return super.read();
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            awaitIfPaused();
+            if (pos < pauseAt) {
+                len = Math.min(len, pauseAt - pos);
+            }
+            return super.read(b, off, len);
+        }
+
+        private void awaitIfPaused() {
+            if (pos == pauseAt) {
+                try {
+                    if (!resume.await(30, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("Source stream was never resumed");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private Counter newCounter() {
+        resourceConfig.setParameter("beanId", beanId);
+
+        Counter counter = new Counter();
+        lifecycleManager.applyPhase(counter, new PostConstructLifecyclePhase(new Scope(registry, resourceConfig, counter)));
+
+        return counter;
+    }
+
+    @BeforeMethod(groups = "unit")
+    public void init() {
+        resourceConfig = new DefaultResourceConfig("x", new Properties(), Counter.class.getName());
+        executionContext = new MockExecutionContext();
+        registry = executionContext.getApplicationContext().getRegistry();
+        lifecycleManager = registry.lookup(new LifecycleManagerLookup());
+        beanContext = executionContext.getBeanContext();
+    }
+}